@@ -5,6 +5,11 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -59,8 +64,18 @@ public class Main {
                         System.out.println(String.join(" ", Vcs.getBranches()));
                         break;
                     case "log":
-                        System.out.println("Branch: " + Vcs.getBranch());
-                        Vcs.getLog().stream().forEach(System.out::println);
+                        Vcs.LogQuery query = parseLogQuery(arg);
+                        if (query == null) {
+                            System.out.println("Usage: log [-n <count>] [--skip <count>] [--since <date>] [--until <date>] [--branch <name>] [<branch or hash>]");
+                            break;
+                        }
+                        Stream<String> log = Vcs.getLog(query);
+                        if (query.from == null) {
+                            System.out.println("Branch: " + Vcs.getBranch());
+                        } else if (Vcs.getBranches().contains(query.from)) {
+                            System.out.println("Branch: " + query.from);
+                        }
+                        Vcs.forEachLog(log, System.out::println);
                         break;
                     case "checkout":
                         Vcs.checkOut(arg);
@@ -102,4 +117,50 @@ public class Main {
             }
         }
     }
+
+    private static Vcs.LogQuery parseLogQuery(String arg) {
+        Vcs.LogQuery query = new Vcs.LogQuery();
+        String[] args = arg.trim().isEmpty() ? new String[0] : arg.trim().split("\\s+");
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n":
+                        query.limit = Long.parseLong(args[++i]);
+                        break;
+                    case "--skip":
+                        query.skip = Long.parseLong(args[++i]);
+                        break;
+                    case "--since":
+                        query.since = parseDate(args[++i], false);
+                        break;
+                    case "--until":
+                        query.until = parseDate(args[++i], true);
+                        break;
+                    case "--branch":
+                        query.branch = args[++i];
+                        break;
+                    default:
+                        if (query.from != null) {
+                            return null;
+                        }
+                        query.from = args[i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | DateTimeParseException | IllegalArgumentException e) {
+            return null;
+        }
+        if (query.skip < 0 || query.limit < 0) {
+            return null;
+        }
+        return query;
+    }
+
+    private static FileTime parseDate(String date, boolean endOfDay) {
+        if (date.contains("T")) {
+            return FileTime.from(Instant.parse(date));
+        }
+        LocalDate day = endOfDay ? LocalDate.parse(date).plusDays(1) : LocalDate.parse(date);
+        Instant start = day.atStartOfDay(ZoneId.systemDefault()).toInstant();
+        return FileTime.from(endOfDay ? start.minusMillis(1) : start);
+    }
 }
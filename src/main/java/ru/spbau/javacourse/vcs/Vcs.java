@@ -7,8 +7,12 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.sun.org.apache.regexp.internal.RE;
 import com.sun.xml.internal.messaging.saaj.util.ByteInputStream;
@@ -19,6 +23,7 @@ public class Vcs {
     private static Path currentDirectory = Paths.get(".");
     private static Path repoDir = Paths.get("./.vcs");
     private static Path infoFile = Paths.get("./.vcs/info");
+    private static Path ignoreFile = Paths.get("./.vcsignore");
 
     static class RepoInfo implements Serializable{
         public Map<String, String> branches;
@@ -27,6 +32,105 @@ public class Vcs {
         public Set<String> index;
     }
 
+    static class PathTrie {
+        private final Map<String, PathTrie> children = new HashMap<>();
+        private boolean tracked;
+
+        PathTrie(Collection<String> paths) {
+            paths.forEach(p -> insert(Paths.get(p).toAbsolutePath()));
+        }
+
+        private PathTrie() {
+        }
+
+        private static final PathTrie EMPTY = new PathTrie();
+
+        private void insert(Path path) {
+            PathTrie node = this;
+            for(Path part : path) {
+                node = node.children.computeIfAbsent(part.toString(), k -> new PathTrie());
+            }
+            node.tracked = true;
+        }
+
+        public PathTrie find(Path path) {
+            PathTrie node = this;
+            for(Path part : path.toAbsolutePath()) {
+                node = node.child(part);
+            }
+            return node;
+        }
+
+        public PathTrie child(Path name) {
+            return children.getOrDefault(name.toString(), EMPTY);
+        }
+
+        public boolean isTracked() {
+            return tracked;
+        }
+
+        public boolean hasTracked() {
+            return tracked || !children.isEmpty();
+        }
+    }
+
+    static class IgnoreRules {
+        private final Path root;
+        private final List<PathMatcher> nameMatchers = new ArrayList<>();
+        private final List<PathMatcher> pathMatchers = new ArrayList<>();
+        private final List<PathMatcher> dirNameMatchers = new ArrayList<>();
+        private final List<PathMatcher> dirPathMatchers = new ArrayList<>();
+
+        IgnoreRules(Path root, List<String> lines) throws RepoException {
+            this.root = root;
+            FileSystem fs = FileSystems.getDefault();
+            for(String line : lines) {
+                String pattern = line.trim();
+                if(pattern.isEmpty() || pattern.startsWith("#")) {
+                    continue;
+                }
+                boolean dirOnly = pattern.endsWith("/");
+                if(dirOnly) {
+                    pattern = pattern.substring(0, pattern.length() - 1);
+                }
+                boolean anchored = pattern.contains("/");
+                if(pattern.startsWith("/")) {
+                    pattern = pattern.substring(1);
+                }
+                if(pattern.isEmpty()) {
+                    continue;
+                }
+                PathMatcher matcher;
+                try {
+                    matcher = fs.getPathMatcher("glob:" + pattern);
+                } catch (PatternSyntaxException e) {
+                    throw new RepoException("Invalid pattern in .vcsignore: " + line.trim());
+                }
+                if(anchored) {
+                    (dirOnly ? dirPathMatchers : pathMatchers).add(matcher);
+                } else {
+                    (dirOnly ? dirNameMatchers : nameMatchers).add(matcher);
+                }
+            }
+        }
+
+        public boolean isIgnored(Path path, boolean isDirectory) {
+            if(path.equals(root) || !path.startsWith(root)) {
+                return false;
+            }
+            Path relative = root.relativize(path);
+            Path name = path.getFileName();
+            if(matches(nameMatchers, name) || matches(pathMatchers, relative)) {
+                return true;
+            }
+            return isDirectory && (matches(dirNameMatchers, name) || matches(dirPathMatchers, relative));
+        }
+
+        private static boolean matches(List<PathMatcher> matchers, Path path) {
+            return matchers.stream().anyMatch(m -> m.matches(path));
+        }
+    }
+
     static class CommitData implements Serializable {
         public static class CommitFile implements Serializable {
             String name;
@@ -72,6 +176,7 @@ public class Vcs {
         currentDirectory = dir.toAbsolutePath();
         repoDir = currentDirectory.resolve(".vcs");
         infoFile = repoDir.resolve("info");
+        ignoreFile = currentDirectory.resolve(".vcsignore");
     }
 
     public static void init() throws RepoException {
@@ -113,7 +218,8 @@ public class Vcs {
     }
 
     private static CommitData readCommit(String hash) throws RepoException {
-        if(!Files.exists(repoDir.resolve(hash))) {
+        if(hash.contains("/") || hash.contains(File.separator) || hash.equals(infoFile.getFileName().toString())
+                || !Files.exists(repoDir.resolve(hash))) {
             throw new RepoException("Commit " + hash + " not found");
         }
         try {
@@ -135,19 +241,38 @@ public class Vcs {
         }
     }
 
+    private static IgnoreRules readIgnore() throws RepoException {
+        if(!Files.exists(ignoreFile)) {
+            return new IgnoreRules(currentDirectory, Collections.emptyList());
+        }
+        try {
+            return new IgnoreRules(currentDirectory, Files.readAllLines(ignoreFile));
+        } catch (IOException e) {
+            throw new RepoException("Can not read ignore file");
+        }
+    }
+
     private static Set<String> getFilesUpdated(final FileTime from, final Set<String> index) throws RepoException {
         final HashSet<String> result = new HashSet<>();
+        final PathTrie tracked = new PathTrie(index);
+        final Deque<PathTrie> nodes = new ArrayDeque<>();
         try {
             Files.walkFileTree(currentDirectory, new FileVisitor<Path>() {
                 public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
                     if(dir.equals(repoDir)) {
                         return FileVisitResult.SKIP_SUBTREE;
                     }
+                    PathTrie node = nodes.isEmpty() ? tracked.find(dir) : nodes.peek().child(dir.getFileName());
+                    if(!node.hasTracked()) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    nodes.push(node);
                     return FileVisitResult.CONTINUE;
                 }
 
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    if(index.contains(file.toAbsolutePath().toString()) && attrs.lastModifiedTime().compareTo(from) > 0) {
+                    if(nodes.peek().child(file.getFileName()).isTracked()
+                            && attrs.lastModifiedTime().compareTo(from) > 0) {
                         result.add(file.toAbsolutePath().toString());
                     }
                     return FileVisitResult.CONTINUE;
@@ -158,6 +283,7 @@ public class Vcs {
                 }
 
                 public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    nodes.pop();
                     return FileVisitResult.CONTINUE;
                 }
             });
@@ -187,16 +313,106 @@ public class Vcs {
         return info.branches.keySet().stream().collect(Collectors.toList());
     }
 
+    public static class LogQuery {
+        public String from;
+        public String branch;
+        public FileTime since;
+        public FileTime until;
+        public long skip = 0;
+        public long limit = Long.MAX_VALUE;
+    }
+
+    public static class UncheckedRepoException extends RuntimeException {
+        public UncheckedRepoException(RepoException cause) {
+            super(cause);
+        }
+
+        @Override
+        public RepoException getCause() {
+            return (RepoException) super.getCause();
+        }
+    }
+
     public static List<String> getLog() throws RepoException {
-        RepoInfo info = readInfo();
-        String hash = info.latestHash;
         List<String> res = new ArrayList<>();
-        while(!hash.isEmpty()) {
-            CommitData cd = readCommit(hash);
-            res.add(cd.hash + ": " + cd.message);
+        forEachLog(getLog(new LogQuery()), res::add);
+        return res;
+    }
+
+    /**
+     * Consumes a stream returned by getLog(LogQuery), rethrowing commit read errors as RepoException.
+     */
+    public static void forEachLog(Stream<String> log, Consumer<String> consumer) throws RepoException {
+        try {
+            log.forEach(consumer);
+        } catch (UncheckedRepoException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Commits are read from disk only as the returned stream is consumed.
+     * Errors while reading a commit are thrown as UncheckedRepoException, see forEachLog.
+     */
+    public static Stream<String> getLog(LogQuery query) throws RepoException {
+        RepoInfo info = readInfo();
+        String head = info.latestHash;
+        if(query.from != null) {
+            head = info.branches.containsKey(query.from) ? info.branches.get(query.from) : query.from;
+        }
+        CommitData first = head.isEmpty() ? null : readCommit(head);
+        Stream<CommitData> history = StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                new HistoryIterator(first, query.since), Spliterator.ORDERED | Spliterator.NONNULL), false);
+        return history
+                .filter(cd -> query.until == null || cd.time.compareTo(query.until) <= 0)
+                .filter(cd -> query.branch == null || query.branch.equals(cd.branch))
+                .skip(query.skip)
+                .limit(query.limit)
+                .map(cd -> cd.hash + ": " + cd.message);
+    }
+
+    private static class HistoryIterator implements Iterator<CommitData> {
+        private final FileTime since;
+        private String hash = "";
+        private CommitData next;
+
+        HistoryIterator(CommitData head, FileTime since) {
+            this.since = since;
+            if(head != null) {
+                accept(head);
+            }
+        }
+
+        private void accept(CommitData cd) {
+            if(since != null && cd.time.compareTo(since) < 0) {
+                hash = "";
+                return;
+            }
             hash = cd.parentHash;
+            next = cd;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next == null && !hash.isEmpty()) {
+                try {
+                    accept(readCommit(hash));
+                } catch (RepoException e) {
+                    throw new UncheckedRepoException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public CommitData next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CommitData cd = next;
+            next = null;
+            return cd;
         }
-        return res;
     }
 
     public static Set<String> getAdded() throws RepoException {
@@ -294,16 +510,24 @@ public class Vcs {
         writeInfo(info);
     }
 
-    private static void clearDir(Path dir) throws RepoException {
-        clearDir(dir, Collections.emptySet());
-    }
-
-    private static void clearDir(Path dir, Set<String> except) throws RepoException {
+    private static void clearDir(Path dir, Set<String> tracked, boolean keepTracked) throws RepoException {
+        final PathTrie trackedFiles = new PathTrie(tracked);
+        final IgnoreRules ignore = readIgnore();
+        final Set<Path> ignoredDirs = new HashSet<>();
+        final Deque<PathTrie> nodes = new ArrayDeque<>();
         try {
             Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    if(!except.contains(file.toString())) {
+                    if(nodes.peek().child(file.getFileName()).isTracked()) {
+                        if(!keepTracked) {
+                            Files.delete(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                    boolean ignored = file.equals(ignoreFile) || ignoredDirs.contains(file.getParent())
+                            || ignore.isIgnored(file, false);
+                    if(!ignored) {
                         Files.delete(file);
                     }
                     return FileVisitResult.CONTINUE;
@@ -314,11 +538,20 @@ public class Vcs {
                     if(d.equals(repoDir)) {
                         return FileVisitResult.SKIP_SUBTREE;
                     }
+                    PathTrie node = nodes.isEmpty() ? trackedFiles.find(d) : nodes.peek().child(d.getFileName());
+                    if(ignoredDirs.contains(d.getParent()) || ignore.isIgnored(d, true)) {
+                        if(!node.hasTracked()) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        ignoredDirs.add(d);
+                    }
+                    nodes.push(node);
                     return FileVisitResult.CONTINUE;
                 }
 
                 @Override
                 public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                    nodes.pop();
                     if(!d.equals(dir) && Files.list(d).count() == 0) {
                         Files.delete(d);
                     }
@@ -345,9 +578,10 @@ public class Vcs {
         RepoInfo info = readInfo();
         info.latestBranch = cd.branch;
         info.latestHash = hash;
+        Set<String> tracked = info.index;
         info.index = cd.index;
         Map<String, Boolean> checkedFiles = cd.index.stream().collect(Collectors.toMap(p -> p, p -> false));
-        clearDir(currentDirectory);
+        clearDir(currentDirectory, tracked, false);
 
         while(checkedFiles.containsValue(false) && !hash.isEmpty()) {
             cd = readCommit(hash);
@@ -357,7 +591,7 @@ public class Vcs {
                     ByteArrayInputStream bs = new ByteArrayInputStream(f.data);
                     try {
                         Files.createDirectories(Paths.get(f.name).getParent());
-                        Files.copy(bs, Paths.get(f.name));
+                        Files.copy(bs, Paths.get(f.name), StandardCopyOption.REPLACE_EXISTING);
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
@@ -474,6 +708,6 @@ public class Vcs {
 
     public static void clean() throws RepoException {
         final RepoInfo info = readInfo();
-        clearDir(currentDirectory, info.index);
+        clearDir(currentDirectory, info.index, true);
     }
 }
@@ -5,7 +5,11 @@ import org.junit.*;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -72,6 +76,178 @@ public class VcsTest {
         assertTrue(Files.exists(srcDirectory.resolve("main.cpp")));
     }
 
+    @Test
+    public void testIgnore() throws Exception {
+        Files.write(testDirectory.resolve(".vcsignore"), "# build outputs\n/build/\nsrc/*.log\n*.tmp\n".getBytes());
+        Path buildDirectory = Files.createDirectory(testDirectory.resolve("build"));
+        Files.createFile(buildDirectory.resolve("out.class"));
+        Files.createFile(buildDirectory.resolve("tracked.txt"));
+        Path nestedBuild = Files.createDirectories(testDirectory.resolve("lib/build"));
+        Files.createFile(nestedBuild.resolve("out.class"));
+        Files.createFile(srcDirectory.resolve("debug.log"));
+        Files.createFile(testDirectory.resolve("debug.log"));
+        Files.createFile(testDirectory.resolve("cache.tmp"));
+        Files.createFile(testDirectory.resolve("111.txt"));
+        Vcs.add(".vcsignore");
+        Vcs.add("file.txt");
+        Vcs.add("src/main.cpp");
+        Vcs.add("build/tracked.txt");
+        Vcs.commit("Message1");
+        Thread.sleep(1000);
+        Files.write(buildDirectory.resolve("tracked.txt"), "lalala".getBytes());
+        Files.write(buildDirectory.resolve("out.class"), "lalala".getBytes());
+        Files.write(nestedBuild.resolve("out.class"), "lalala".getBytes());
+        assertEquals(Collections.singleton(buildDirectory.resolve("tracked.txt").toAbsolutePath().toString()),
+                Vcs.getChanged());
+
+        Vcs.PathTrie tracked = new Vcs.PathTrie(Collections.singleton(
+                buildDirectory.resolve("tracked.txt").toAbsolutePath().toString()));
+        assertTrue(tracked.find(buildDirectory).hasTracked());
+        assertTrue(tracked.find(buildDirectory).child(Paths.get("tracked.txt")).isTracked());
+        assertFalse(tracked.find(buildDirectory).child(Paths.get("out.class")).isTracked());
+        assertFalse(tracked.find(testDirectory.resolve("lib")).hasTracked());
+
+        Vcs.clean();
+        assertTrue(Files.exists(testDirectory.resolve(".vcsignore")));
+        assertTrue(Files.exists(buildDirectory.resolve("out.class")));
+        assertTrue(Files.exists(buildDirectory.resolve("tracked.txt")));
+        assertTrue(Files.exists(srcDirectory.resolve("debug.log")));
+        assertTrue(Files.exists(testDirectory.resolve("cache.tmp")));
+        assertTrue(Files.exists(srcDirectory.resolve("main.cpp")));
+        assertTrue(Files.exists(testDirectory.resolve("file.txt")));
+        assertFalse(Files.exists(nestedBuild.resolve("out.class")));
+        assertFalse(Files.exists(testDirectory.resolve("debug.log")));
+        assertFalse(Files.exists(testDirectory.resolve("111.txt")));
+        assertFalse(Files.exists(srcDirectory.resolve("code.cpp")));
+    }
+
+    @Test
+    public void testInvalidIgnore() throws Exception {
+        Files.createFile(testDirectory.resolve("111.txt"));
+        for (String pattern : new String[] {"[abc", "{a,{b}}"}) {
+            Files.write(testDirectory.resolve(".vcsignore"), ("*.log\n" + pattern + "\n").getBytes());
+            try {
+                Vcs.clean();
+                fail("Pattern " + pattern + " should be rejected");
+            } catch (RepoException e) {
+                assertEquals("Invalid pattern in .vcsignore: " + pattern, e.getMessage());
+            }
+        }
+        assertTrue(Files.exists(testDirectory.resolve("111.txt")));
+    }
+
+    @Test
+    public void testCheckoutIgnore() throws Exception {
+        Files.write(testDirectory.resolve(".vcsignore"), "*.log\n/build/\n".getBytes());
+        Files.write(srcDirectory.resolve("x.log"), "first".getBytes());
+        Path buildDirectory = Files.createDirectory(testDirectory.resolve("build"));
+        Files.write(buildDirectory.resolve("tracked.txt"), "first".getBytes());
+        Vcs.add(".vcsignore");
+        Vcs.add("file.txt");
+        Vcs.add("src/x.log");
+        Vcs.add("build/tracked.txt");
+        Vcs.commit("Message1");
+        String first = Vcs.getLog().get(0).split(":")[0];
+        Thread.sleep(1000);
+
+        Files.write(testDirectory.resolve(".vcsignore"), "*.log\n/build/\n*.tmp\n".getBytes());
+        Files.write(testDirectory.resolve("file.txt"), "second".getBytes());
+        Files.write(srcDirectory.resolve("x.log"), "second".getBytes());
+        Files.write(buildDirectory.resolve("tracked.txt"), "second".getBytes());
+        Files.write(srcDirectory.resolve("new.log"), "second".getBytes());
+        Vcs.add("src/new.log");
+        Vcs.commit("Message2");
+        Thread.sleep(1000);
+
+        Files.createFile(srcDirectory.resolve("untracked.log"));
+        Files.createFile(buildDirectory.resolve("out.class"));
+        Vcs.checkOutHash(first);
+        assertArrayEquals("*.log\n/build/\n".getBytes(), Files.readAllBytes(testDirectory.resolve(".vcsignore")));
+        assertEquals(0, Files.readAllBytes(testDirectory.resolve("file.txt")).length);
+        assertArrayEquals("first".getBytes(), Files.readAllBytes(srcDirectory.resolve("x.log")));
+        assertArrayEquals("first".getBytes(), Files.readAllBytes(buildDirectory.resolve("tracked.txt")));
+        assertFalse(Files.exists(srcDirectory.resolve("new.log")));
+        assertTrue(Files.exists(srcDirectory.resolve("untracked.log")));
+        assertTrue(Files.exists(buildDirectory.resolve("out.class")));
+        assertEquals(first, Vcs.getLog().get(0).split(":")[0]);
+    }
+
+    @Test
+    public void testLog() throws Exception {
+        Path file = testDirectory.resolve("file.txt");
+        Vcs.add("file.txt");
+        Vcs.commit("Message1");
+        Thread.sleep(1000);
+        FileTime between = FileTime.from(Instant.now());
+        Thread.sleep(1000);
+        Files.write(file, "aaaa".getBytes());
+        Vcs.commit("Message2");
+        Thread.sleep(1000);
+        Vcs.newBranch("test");
+        Files.write(file, "bbbb".getBytes());
+        Vcs.commit("Message3");
+
+        List<String> log = Vcs.getLog();
+        assertEquals(3, log.size());
+        assertTrue(log.get(0).endsWith(": Message3"));
+        assertTrue(log.get(2).endsWith(": Message1"));
+
+        Vcs.LogQuery query = new Vcs.LogQuery();
+        query.skip = 1;
+        query.limit = 1;
+        assertEquals(Collections.singletonList(log.get(1)), Vcs.getLog(query).collect(Collectors.toList()));
+
+        query = new Vcs.LogQuery();
+        query.since = between;
+        assertEquals(log.subList(0, 2), Vcs.getLog(query).collect(Collectors.toList()));
+
+        query = new Vcs.LogQuery();
+        query.until = between;
+        assertEquals(log.subList(2, 3), Vcs.getLog(query).collect(Collectors.toList()));
+
+        query = new Vcs.LogQuery();
+        query.branch = "master";
+        assertEquals(log.subList(1, 3), Vcs.getLog(query).collect(Collectors.toList()));
+
+        query = new Vcs.LogQuery();
+        query.from = "master";
+        assertEquals(log.subList(1, 3), Vcs.getLog(query).collect(Collectors.toList()));
+
+        for (String from : new String[] {"info", "../file.txt", "unknown"}) {
+            query = new Vcs.LogQuery();
+            query.from = from;
+            try {
+                Vcs.getLog(query);
+                fail("Log from " + from + " should fail");
+            } catch (RepoException e) {
+                assertEquals("Commit " + from + " not found", e.getMessage());
+            }
+            try {
+                Vcs.checkOut(from);
+                fail("Checkout of " + from + " should fail");
+            } catch (RepoException e) {
+                assertEquals("Commit " + from + " not found", e.getMessage());
+            }
+        }
+
+        Files.delete(testDirectory.resolve(".vcs").resolve(log.get(2).split(":")[0]));
+        query = new Vcs.LogQuery();
+        query.limit = 1;
+        assertEquals(log.subList(0, 1), Vcs.getLog(query).collect(Collectors.toList()));
+        try {
+            Vcs.getLog(new Vcs.LogQuery()).collect(Collectors.toList());
+            fail("Log over a missing commit should fail");
+        } catch (Vcs.UncheckedRepoException e) {
+            assertEquals("Commit " + log.get(2).split(":")[0] + " not found", e.getCause().getMessage());
+        }
+        try {
+            Vcs.getLog();
+            fail("Log over a missing commit should fail");
+        } catch (RepoException e) {
+            // expected
+        }
+    }
+
     @After
     public void clean() throws Exception {
         Files.walkFileTree(testDirectory, new SimpleFileVisitor<Path>() {